@@ -2,12 +2,15 @@ package org.mediawiki.api.json;
 
 import com.github.kevinsawicki.http.HttpRequest;
 
+import java.io.File;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Client wrapper for connecting to a MediaWiki installation's API.
@@ -43,6 +46,42 @@ public class Api {
     private static final int DEFAULT_HTTP_PORT = 80;
     private static final int DEFAULT_HTTPS_PORT = 443;
 
+    /**
+     * Chunk size for POST bodies with streamed parameters, which are sent without buffering the whole body.
+     */
+    private static final int STREAMING_CHUNK_SIZE = 8192;
+
+    /**
+     * Header carrying the correlation ID of the traced operation a request was made for.
+     */
+    public static final String CORRELATION_ID_HEADER = "X-Request-Id";
+
+    /**
+     * Response size, in bytes, above which response bodies are spooled to a temporary file.
+     * A negative value (the default) keeps every response body in memory.
+     */
+    private long spillThreshold = -1;
+
+    /**
+     * Directory in which spooled response bodies are created, or null for the system default.
+     */
+    private File spillDirectory;
+
+    /**
+     * Cache of GET responses, or null if responses are not cached.
+     */
+    private ApiResponseCache responseCache;
+
+    /**
+     * Destination of finished trace spans, or null if requests are not traced.
+     */
+    private TraceExporter traceExporter;
+
+    /**
+     * Operation started on each thread with {@link #startOperation(String)} and not yet ended.
+     */
+    private final ThreadLocal<TraceSpan> currentOperation = new ThreadLocal<TraceSpan>();
+
     /**
      * Create an Api object with given only hostname.
      *
@@ -201,9 +240,21 @@ public class Api {
      */
     public ApiResult setupRequest(final int method, final RequestBuilder requestBuilder) throws ApiException {
         HttpRequest request;
+        String cacheKey = null;
         switch(method) {
             case METHOD_GET:
-                request = HttpRequest.get(getApiUrl().toString(), encodeParams(requestBuilder.getParams()), false);
+                if (!requestBuilder.getStreamParams().isEmpty()) {
+                    throw new IllegalArgumentException("Streamed parameters can only be sent with a POST request");
+                }
+                Map<String, String> params = encodeParams(requestBuilder.getParams());
+                if (responseCache != null && requestBuilder.isCacheable()) {
+                    cacheKey = cacheKey(params);
+                    ApiResponseCache.CachedResponse cached = responseCache.get(cacheKey);
+                    if (cached != null) {
+                        return new ApiResult(this, cached);
+                    }
+                }
+                request = HttpRequest.get(getApiUrl().toString(), params, false);
                 break;
             case METHOD_POST:
                 request = HttpRequest.post(getApiUrl().toString());
@@ -216,18 +267,73 @@ public class Api {
         if (this.customHeaders != null) {
             request = request.headers(customHeaders);
         }
+        TraceSpan span = null;
+        if (traceExporter != null) {
+            span = startRequestSpan(method, requestBuilder);
+            request.header(CORRELATION_ID_HEADER, span.getCorrelationId());
+        }
         if (method == METHOD_POST) {
             // catch network-related exceptions, since the form() function performs a
             // network request.
             try {
-                request.form(requestBuilder.getParams());
+                if (requestBuilder.getStreamParams().isEmpty()) {
+                    request.form(requestBuilder.getParams());
+                } else {
+                    writeMultipart(request, requestBuilder);
+                }
             } catch (HttpRequest.HttpRequestException e) {
-                throw new ApiException(e.getCause());
+                throw endSpan(span, new ApiException(e.getCause()));
             } catch (SecurityException e) {
-                throw new ApiException(e);
+                throw endSpan(span, new ApiException(e));
+            }
+        }
+        return new ApiResult(this, request, cacheKey, span);
+    }
+
+    /**
+     * Start the span of a physical request, as a child of the operation it was made for.
+     */
+    private TraceSpan startRequestSpan(int method, RequestBuilder requestBuilder) {
+        String action = requestBuilder.getParams().get("action");
+        TraceSpan parent = requestBuilder.getTraceParent();
+        if (parent == null || !parent.isRecording()) {
+            parent = currentOperation.get();
+        }
+        TraceSpan span = parent == null
+                ? TraceSpan.root(traceExporter, action, null, null)
+                : parent.child(action);
+        span.setAttribute("http.method", method == METHOD_POST ? "POST" : "GET");
+        span.setAttribute("http.url", apiUrl.toString());
+        return span;
+    }
+
+    private static ApiException endSpan(TraceSpan span, ApiException error) {
+        if (span != null) {
+            span.setError(error);
+            span.end();
+        }
+        return error;
+    }
+
+    /**
+     * Write the parameters as a multipart/form-data body, streaming the streamed parameters
+     * in chunks so that the body is never held in memory as a whole.
+     */
+    private void writeMultipart(HttpRequest request, RequestBuilder requestBuilder) {
+        request.chunk(STREAMING_CHUNK_SIZE);
+        for (Map.Entry<String, String> entry: requestBuilder.getParams().entrySet()) {
+            request.part(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Object> entry: requestBuilder.getStreamParams().entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof File) {
+                request.part(entry.getKey(), ((File) value).getName(), (File) value);
+            } else if (value instanceof InputStream) {
+                request.part(entry.getKey(), null, null, (InputStream) value);
+            } else {
+                request.part(entry.getKey(), null, null, new CharSequenceInputStream((CharSequence) value));
             }
         }
-        return new ApiResult(this, request);
     }
 
     private Map<String, String> encodeParams(Map<String, String> params) {
@@ -241,6 +347,28 @@ public class Api {
         return params;
     }
 
+    /**
+     * Build the key under which a GET request's response is cached: the full request URL, followed by
+     * any custom headers, so that a cache shared by several Api objects never mixes up wikis or users.
+     *
+     * @param encodedParams URL-encoded parameters of the request
+     * @return Key identifying the request
+     */
+    String cacheKey(Map<String, String> encodedParams) {
+        StringBuilder key = new StringBuilder(apiUrl.toString());
+        char separator = '?';
+        for (Map.Entry<String, String> entry: encodedParams.entrySet()) {
+            key.append(separator).append(entry.getKey()).append('=').append(entry.getValue());
+            separator = '&';
+        }
+        if (customHeaders != null) {
+            for (Map.Entry<String, String> header: new TreeMap<String, String>(customHeaders).entrySet()) {
+                key.append('\n').append(header.getKey()).append(": ").append(header.getValue());
+            }
+        }
+        return key.toString();
+    }
+
     /**
      * Set the connection factory used to construct connections.
      *
@@ -250,6 +378,105 @@ public class Api {
         HttpRequest.setConnectionFactory(factory);
     }
 
+    /**
+     * Spool response bodies larger than the given size to a temporary file instead of holding
+     * them on the heap.
+     *
+     * Spooled results are parsed straight from the file, and can also be read through
+     * {@link ApiResult#asStream()} or {@link ApiResult#asMappedBuffer()} without parsing.
+     * Call {@link ApiResult#release()} once done with a result to delete its file.
+     *
+     * @param threshold Size in bytes above which bodies are spooled, or a negative value to disable spooling.
+     */
+    public void setSpillThreshold(long threshold) {
+        spillThreshold = threshold;
+    }
+
+    /**
+     * @return Size in bytes above which response bodies are spooled, or a negative value if disabled.
+     */
+    public long getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * Set the directory in which spooled response bodies are created.
+     *
+     * @param directory Directory for temporary files, or null to use the system default.
+     */
+    public void setSpillDirectory(File directory) {
+        spillDirectory = directory;
+    }
+
+    /**
+     * @return Directory in which spooled response bodies are created, or null for the system default.
+     */
+    public File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * Serve GET requests from the given cache while their responses are fresh, and add
+     * successful GET responses to it.
+     *
+     * Only requests marked with {@link RequestBuilder#cacheable()} use the cache; all others are
+     * always sent to the server.
+     *
+     * Responses served from the cache make no network request, so the
+     * {@link OnHeaderCheckListener} is not called for them.
+     *
+     * @param cache The response cache to use, or null to stop caching.
+     */
+    public void setResponseCache(ApiResponseCache cache) {
+        responseCache = cache;
+    }
+
+    /**
+     * @return The cache of GET responses, or null if responses are not cached.
+     */
+    public ApiResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Trace requests, handing their spans to the given exporter as they end.
+     *
+     * @param exporter The exporter to hand spans to, or null to stop tracing.
+     */
+    public void setTraceExporter(TraceExporter exporter) {
+        traceExporter = exporter;
+    }
+
+    /**
+     * @return The exporter spans are handed to, or null if requests are not traced.
+     */
+    public TraceExporter getTraceExporter() {
+        return traceExporter;
+    }
+
+    /**
+     * Start a logical operation that the following requests made on this thread are attributed to,
+     * until the returned span is ended. Requests made on other threads can be attributed to it with
+     * {@link RequestBuilder#trace(TraceSpan)}.
+     *
+     * @param name Name of the operation
+     * @return The operation's span, or {@link TraceSpan#NOOP} if no trace exporter is installed.
+     */
+    public TraceSpan startOperation(String name) {
+        if (traceExporter == null) {
+            return TraceSpan.NOOP;
+        }
+        TraceSpan operation = TraceSpan.root(traceExporter, name, this, currentOperation.get());
+        currentOperation.set(operation);
+        return operation;
+    }
+
+    void endOperation(TraceSpan operation) {
+        if (currentOperation.get() == operation) {
+            currentOperation.set(operation.getPreviousOperation());
+        }
+    }
+
     private OnHeaderCheckListener onHeaderCheckListener;
 
     public void setHeaderCheckListener(OnHeaderCheckListener listener) {
@@ -0,0 +1,28 @@
+package org.mediawiki.api.json;
+
+/**
+ * A single API call run as part of an {@link ApiTaskGroup}.
+ *
+ * The call is split in two so that the group can cancel the request through its {@link ApiResult}
+ * while the response is still being read.
+ *
+ * @param <T> Type of the value the call produces.
+ */
+public interface ApiCall<T> {
+    /**
+     * Set up the request, e.g. <code>api.action("query").param(...).get()</code>.
+     *
+     * @return The result of the request.
+     * @throws ApiException Thrown in the case of a network error.
+     */
+    ApiResult start() throws ApiException;
+
+    /**
+     * Read the response and produce the call's value, e.g. by calling {@link ApiResult#asObject()}.
+     *
+     * @param result The result returned by {@link #start()}.
+     * @return The call's value.
+     * @throws ApiException Thrown in the case of any error(s).
+     */
+    T finish(ApiResult result) throws ApiException;
+}
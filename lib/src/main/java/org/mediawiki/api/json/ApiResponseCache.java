@@ -0,0 +1,94 @@
+package org.mediawiki.api.json;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory cache of successful GET responses, keyed by their URL and the Api's custom headers.
+ *
+ * Install one with {@link Api#setResponseCache(ApiResponseCache)}; it is only used by requests
+ * marked with {@link RequestBuilder#cacheable()}. The raw response bodies are cached rather than
+ * parsed objects, so every {@link ApiResult} gets its own copy to work with.
+ * Bodies spooled to disk by a spill threshold are not cached. The least recently used entries are
+ * evicted once the cache is full, and entries expire after a fixed time. A cache can be shared by
+ * several Api objects, even for different wikis or users.
+ */
+public class ApiResponseCache {
+    private static final float LOAD_FACTOR = .75f;
+
+    private final int maxEntries;
+    private final long ttlMillis;
+
+    /**
+     * Cached entries, in least recently used order.
+     */
+    private final LinkedHashMap<String, CachedResponse> entries;
+
+    /**
+     * Create a response cache.
+     *
+     * @param maxEntries Number of responses to keep.
+     * @param ttlMillis Time in milliseconds for which a response is served from the cache.
+     */
+    public ApiResponseCache(final int maxEntries, final long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        entries = new LinkedHashMap<String, CachedResponse>(maxEntries, LOAD_FACTOR, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                return size() > ApiResponseCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return Number of responses currently cached, including any that have expired but not been evicted yet.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Remove every cached response.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized CachedResponse get(final String key) {
+        CachedResponse entry = entries.get(key);
+        if (entry != null && entry.expires < System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    synchronized void put(final String key, final String body, final Map<String, List<String>> headers) {
+        entries.put(key, new CachedResponse(body, headers, System.currentTimeMillis() + ttlMillis));
+    }
+
+    /**
+     * A cached response body with the headers it was received with.
+     */
+    static final class CachedResponse {
+        private final String body;
+        private final Map<String, List<String>> headers;
+        private final long expires;
+
+        private CachedResponse(final String body, final Map<String, List<String>> headers, final long expires) {
+            this.body = body;
+            this.headers = headers;
+            this.expires = expires;
+        }
+
+        String getBody() {
+            return body;
+        }
+
+        Map<String, List<String>> getHeaders() {
+            return headers;
+        }
+    }
+}
@@ -4,7 +4,24 @@ import com.github.kevinsawicki.http.HttpRequest;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Map;
 import java.util.List;
 
@@ -13,8 +30,21 @@ import java.util.List;
  *
  * The network request is made *only* when {@link #asArray()} or {@link #asObject()}
  * is called.
+ *
+ * If the {@link Api} has a spill threshold set, response bodies larger than it are spooled
+ * to a temporary file rather than held in memory. Call {@link #release()} when done with
+ * such a result so the file is deleted.
  */
 public class ApiResult {
+    private static final int BUFFER_SIZE = 8192;
+    private static final String SPILL_PREFIX = "mwapi";
+    private static final String SPILL_SUFFIX = ".json";
+
+    /**
+     * Response headers recorded on the request's trace span: cache status, backend host and timing.
+     */
+    private static final String[] TRACED_HEADERS = {"X-Cache", "X-Cache-Status", "Server", "Backend-Timing"};
+
     /**
      * Request for which this object holds the results.
      */
@@ -22,21 +52,121 @@ public class ApiResult {
     private final Api api;
     private Map<String, List<String>> headers;
 
+    /**
+     * Response body, when it has been read into memory by {@link #loadBody()}.
+     */
+    private byte[] bodyBytes;
+
+    /**
+     * Temporary file holding the response body, when it was too large to keep in memory.
+     */
+    private File spillFile;
+
+    /**
+     * Length of the response body, or -1 if it has not been read yet.
+     */
+    private long bodyLength = -1;
+
+    /**
+     * Key under which a successful response is added to the Api's response cache, or null if it is not cached.
+     */
+    private String cacheKey;
+
+    /**
+     * Response body served from the Api's response cache, or null if the request goes over the network.
+     */
+    private final String cachedBody;
+
+    /**
+     * Trace span of the request, or null if it is not traced.
+     */
+    private final TraceSpan span;
+
+    /**
+     * Response body read into a String, kept until it has parsed successfully and can be cached.
+     */
+    private String cacheableBody;
+
+    /**
+     * Whether the response was served from the Api's response cache, or has been added to it.
+     */
+    private boolean inCache;
+
     /**
      * Create an APIResult object corresponding to this request object.
      *
      * @param request {@link HttpRequest} object which can perform the query for which this object holds the results.
      */
     ApiResult(final Api api, final HttpRequest request) {
+        this(api, request, null, null);
+    }
+
+    /**
+     * Create an APIResult object corresponding to this request object, whose response is added
+     * to the Api's response cache when it has been read successfully.
+     *
+     * @param request {@link HttpRequest} object which can perform the query for which this object holds the results.
+     * @param cacheKey Key under which to cache the response, or null to not cache it.
+     * @param span Trace span of the request, ended once its response has been read, or null if it is not traced.
+     */
+    ApiResult(final Api api, final HttpRequest request, final String cacheKey, final TraceSpan span) {
         this.api = api;
         this.request = request;
+        this.cacheKey = cacheKey;
+        this.cachedBody = null;
+        this.span = span;
+    }
+
+    /**
+     * Create an APIResult object for a response served from the Api's response cache.
+     *
+     * @param cached The cached response.
+     */
+    ApiResult(final Api api, final ApiResponseCache.CachedResponse cached) {
+        this.api = api;
+        this.request = null;
+        this.cachedBody = cached.getBody();
+        this.headers = cached.getHeaders();
+        this.inCache = true;
+        this.span = null;
     }
 
     /**
      * Disconnect the request if it is in progress.
      */
     public void cancel() {
-        request.disconnect();
+        if (request != null) {
+            request.disconnect();
+        }
+        if (span != null) {
+            span.setAttribute("cancelled", "true");
+            span.end();
+        }
+        release();
+    }
+
+    /**
+     * Discard the response body held by this result, deleting its temporary file if it was spooled.
+     *
+     * Results already returned by {@link #asArray()} or {@link #asObject()} remain valid, but
+     * streams and buffers obtained from {@link #asStream()} or {@link #asMappedBuffer()} must
+     * not be used afterwards.
+     */
+    public void release() {
+        bodyBytes = null;
+        if (spillFile != null) {
+            if (!spillFile.delete()) {
+                spillFile.deleteOnExit();
+            }
+            spillFile = null;
+        }
+    }
+
+    /**
+     * @return true if the response body was larger than the spill threshold and is held in a temporary file.
+     */
+    public boolean isSpilled() {
+        return spillFile != null;
     }
 
     private JSONArray resultArray;
@@ -52,17 +182,22 @@ public class ApiResult {
     public JSONArray asArray() throws ApiException {
         try {
             if (resultArray == null) {
-                extractResponseHeaders();
-                assertSuccess();
-                resultArray = new JSONArray(request.body());
+                Reader reader = bodyReader();
+                try {
+                    resultArray = new JSONArray(new JSONTokener(reader));
+                } finally {
+                    reader.close();
+                }
+                storeInCache();
+                endSpan();
             }
             return resultArray;
         } catch (HttpRequest.HttpRequestException e) {
-            throw new ApiException(e.getCause());
+            throw endSpan(new ApiException(e.getCause()));
         } catch (ApiException e) {
-            throw e;
+            throw endSpan(e);
         } catch (Exception e) {
-            throw new ApiException(e);
+            throw endSpan(new ApiException(e));
         }
     }
 
@@ -77,22 +212,237 @@ public class ApiResult {
     public JSONObject asObject() throws ApiException {
         try {
             if (resultObject == null) {
-                extractResponseHeaders();
-                assertSuccess();
-                resultObject = new JSONObject(request.body());
+                Reader reader = bodyReader();
+                try {
+                    resultObject = new JSONObject(new JSONTokener(reader));
+                } finally {
+                    reader.close();
+                }
+                storeInCache();
+                endSpan();
             }
             return resultObject;
         } catch (HttpRequest.HttpRequestException e) {
-            throw new ApiException(e.getCause());
+            throw endSpan(new ApiException(e.getCause()));
         } catch (ApiException e) {
-            throw e;
+            throw endSpan(e);
+        } catch (Exception e) {
+            throw endSpan(new ApiException(e));
+        }
+    }
+
+    /**
+     * Start the network request & return the raw response body as a stream, without parsing it.
+     *
+     * Each call returns a new stream positioned at the start of the body. The stream reads from
+     * the spooled file if the body exceeded the spill threshold, and from memory otherwise.
+     *
+     * @return An {@link InputStream} over the response body, which the caller must close.
+     * @throws ApiException Thrown in the case of any error(s). Check the inner exception for details.
+     */
+    public InputStream asStream() throws ApiException {
+        try {
+            loadBody();
+            endSpan();
+            return openBody();
+        } catch (HttpRequest.HttpRequestException e) {
+            throw endSpan(new ApiException(e.getCause()));
+        } catch (ApiException e) {
+            throw endSpan(e);
         } catch (Exception e) {
-            throw new ApiException(e);
+            throw endSpan(new ApiException(e));
         }
     }
 
+    /**
+     * Start the network request & return the raw response body as a read-only buffer.
+     *
+     * A spooled body is memory-mapped from its temporary file, so it does not count against the heap.
+     *
+     * @return A read-only {@link ByteBuffer} holding the response body.
+     * @throws ApiException Thrown in the case of any error(s). Check the inner exception for details.
+     */
+    public ByteBuffer asMappedBuffer() throws ApiException {
+        try {
+            loadBody();
+            endSpan();
+            if (spillFile == null) {
+                return ByteBuffer.wrap(bodyBytes).asReadOnlyBuffer();
+            }
+            RandomAccessFile file = new RandomAccessFile(spillFile, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                file.close();
+            }
+        } catch (HttpRequest.HttpRequestException e) {
+            throw endSpan(new ApiException(e.getCause()));
+        } catch (ApiException e) {
+            throw endSpan(e);
+        } catch (Exception e) {
+            throw endSpan(new ApiException(e));
+        }
+    }
+
+    /**
+     * Open a reader over the response body, checking the response for errors first.
+     *
+     * Without a spill threshold the body is read straight into a String, as before. Otherwise it
+     * goes through {@link #loadBody()}, so large bodies are parsed from their temporary file.
+     */
+    private Reader bodyReader() throws IOException, JSONException, ApiException {
+        if (cachedBody != null) {
+            bodyLength = cachedBody.length();
+            return new StringReader(cachedBody);
+        }
+        if (api.getSpillThreshold() < 0 && bodyBytes == null && spillFile == null) {
+            extractResponseHeaders();
+            assertSuccess();
+            String body = request.body();
+            bodyLength = body.length();
+            if (cacheKey != null) {
+                cacheableBody = body;
+            }
+            return new StringReader(body);
+        }
+        loadBody();
+        return new InputStreamReader(openBody(), charset());
+    }
+
+    /**
+     * Open a stream over the loaded body, from the spooled file if there is one.
+     */
+    private InputStream openBody() throws IOException {
+        if (spillFile != null) {
+            return new BufferedInputStream(new FileInputStream(spillFile), BUFFER_SIZE);
+        }
+        return new ByteArrayInputStream(bodyBytes);
+    }
+
+    /**
+     * Read the response body once, keeping it in memory if it fits under the spill threshold
+     * and copying it to a temporary file as soon as it grows past it.
+     */
+    private void loadBody() throws IOException, JSONException, ApiException {
+        if (bodyBytes != null || spillFile != null) {
+            return;
+        }
+        if (cachedBody != null) {
+            bodyBytes = cachedBody.getBytes(HttpRequest.CHARSET_UTF8);
+            bodyLength = bodyBytes.length;
+            return;
+        }
+        extractResponseHeaders();
+        assertSuccess();
+
+        final long threshold = api.getSpillThreshold() < 0 ? Long.MAX_VALUE : api.getSpillThreshold();
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final InputStream in = request.stream();
+        OutputStream out = buffer;
+        try {
+            final byte[] chunk = new byte[BUFFER_SIZE];
+            long length = 0;
+            int count = in.read(chunk);
+            while (count != -1) {
+                length += count;
+                if (out == buffer && length > threshold) {
+                    spillFile = File.createTempFile(SPILL_PREFIX, SPILL_SUFFIX, api.getSpillDirectory());
+                    out = new BufferedOutputStream(new FileOutputStream(spillFile), BUFFER_SIZE);
+                    buffer.writeTo(out);
+                    buffer.reset();
+                }
+                out.write(chunk, 0, count);
+                count = in.read(chunk);
+            }
+            bodyLength = length;
+        } catch (IOException e) {
+            release();
+            throw e;
+        } finally {
+            in.close();
+            out.close();
+        }
+        if (spillFile == null) {
+            bodyBytes = buffer.toByteArray();
+        }
+    }
+
+    /**
+     * Get the length of the response body. Note that this must be called after the body has been read.
+     *
+     * This is the size in bytes when the body was read by {@link #asStream()}, {@link #asMappedBuffer()}
+     * or with a spill threshold set, and its length in characters otherwise.
+     *
+     * @return Length of the response body, or -1 if it has not been read yet.
+     */
+    public long getBodyLength() {
+        return bodyLength;
+    }
+
+    /**
+     * @return true if the response was served from the Api's response cache, or has been added to it.
+     */
+    boolean isInCache() {
+        return inCache;
+    }
+
+    /**
+     * Add the response body to the Api's response cache, if it should be cached and was kept in memory.
+     */
+    private void storeInCache() throws IOException {
+        if (cacheKey == null || api.getResponseCache() == null) {
+            return;
+        }
+        String body = cacheableBody;
+        if (body == null && bodyBytes != null) {
+            body = new String(bodyBytes, charset());
+        }
+        if (body != null) {
+            api.getResponseCache().put(cacheKey, body, headers);
+            inCache = true;
+        }
+        cacheKey = null;
+        cacheableBody = null;
+    }
+
+    private void endSpan() {
+        if (span != null) {
+            span.end();
+        }
+    }
+
+    private ApiException endSpan(final ApiException error) {
+        if (span != null) {
+            span.setError(error);
+            span.end();
+        }
+        return error;
+    }
+
+    private String charset() {
+        if (request == null) {
+            return HttpRequest.CHARSET_UTF8;
+        }
+        String charset = request.charset();
+        if (charset == null || charset.length() == 0) {
+            return HttpRequest.CHARSET_UTF8;
+        }
+        return charset;
+    }
+
     private void extractResponseHeaders() {
         headers = request.headers();
+        if (span != null) {
+            span.setAttribute("http.status_code", Integer.toString(request.code()));
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                for (String name : TRACED_HEADERS) {
+                    if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                        span.setAttribute(name, header.getValue().get(0));
+                    }
+                }
+            }
+        }
         api.processHeaders(this);
     }
 
@@ -0,0 +1,260 @@
+package org.mediawiki.api.json;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a group of blocking API calls concurrently, and fails them together.
+ *
+ * Calls are forked into the group and then joined. As soon as one call fails, the requests of all
+ * the others are cancelled through {@link ApiResult#cancel()}, and {@link #join()} throws the first
+ * failure once every call has returned, so no call outlives the group. This keeps the simple blocking style of <code>get().asObject()</code> while running many
+ * calls at once.
+ *
+ * By default each call runs on a thread of its own: a virtual thread when the JVM supports them,
+ * so that thousands of calls can be in flight at little cost, and a pooled platform thread otherwise.
+ * The library holds no locks while waiting on the network, so calls do not pin virtual threads to
+ * their carriers.
+ *
+ * A group is forked into and joined by a single owning thread, and is used once.
+ */
+public class ApiTaskGroup {
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    private final List<Future<?>> futures = new CopyOnWriteArrayList<Future<?>>();
+
+    /**
+     * Guards runningCalls, and is notified when it drops to zero.
+     */
+    private final Object callsLock = new Object();
+
+    /**
+     * Number of calls that haven't returned yet, including any whose Future was cancelled while running.
+     */
+    private int runningCalls;
+
+    /**
+     * Results of the calls in progress, cancelled as soon as one call fails.
+     */
+    private final Set<ApiResult> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<ApiResult, Boolean>());
+
+    /**
+     * First failure of a call in the group, or null while all calls are succeeding.
+     */
+    private final AtomicReference<ApiException> failure = new AtomicReference<ApiException>();
+
+    /**
+     * Create a group running each call on a thread of its own, see {@link #newThreadPerTaskExecutor()}.
+     */
+    public ApiTaskGroup() {
+        this(newThreadPerTaskExecutor(), true);
+    }
+
+    /**
+     * Create a group running its calls on the given executor, which is left running after {@link #join()}.
+     *
+     * @param executor Executor to run the calls on.
+     */
+    public ApiTaskGroup(final ExecutorService executor) {
+        this(executor, false);
+    }
+
+    private ApiTaskGroup(final ExecutorService executor, final boolean ownsExecutor) {
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Create an executor that runs each task on a new virtual thread if the JVM supports them,
+     * or on a pooled platform thread otherwise.
+     *
+     * @return A new executor, which the caller must shut down.
+     */
+    public static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception e) {
+            // Virtual threads aren't available on this JVM.
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Start a call in the group.
+     *
+     * @param call The call to run.
+     * @param <T> Type of the value the call produces.
+     * @return A Future holding the call's value once it has succeeded.
+     */
+    public <T> Future<T> fork(final ApiCall<T> call) {
+        final FutureTask<T> future = new FutureTask<T>(new Callable<T>() {
+            @Override
+            public T call() throws ApiException {
+                if (failure.get() != null) {
+                    throw new CancellationException("Another call in the group failed");
+                }
+                ApiResult result = null;
+                try {
+                    result = call.start();
+                    inFlight.add(result);
+                    if (failure.get() != null) {
+                        result.cancel();
+                        throw new CancellationException("Another call in the group failed");
+                    }
+                    return call.finish(result);
+                } catch (ApiException e) {
+                    fail(e);
+                    throw e;
+                } catch (RuntimeException e) {
+                    if (!(e instanceof CancellationException)) {
+                        fail(new ApiException(e));
+                    }
+                    throw e;
+                } finally {
+                    if (result != null) {
+                        inFlight.remove(result);
+                    }
+                }
+            }
+        });
+        synchronized (callsLock) {
+            runningCalls++;
+        }
+        try {
+            // A Future cancelled before it ran returns from run() at once, so every call is counted off.
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        future.run();
+                    } finally {
+                        callReturned();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            callReturned();
+            throw e;
+        }
+        futures.add(future);
+        return future;
+    }
+
+    /**
+     * Wait for every call in the group to return, including calls cancelled because another one failed.
+     *
+     * @throws ApiException The first failure of a call in the group, or an ApiException wrapping an
+     *                      InterruptedException if the waiting thread was interrupted.
+     */
+    public void join() throws ApiException {
+        try {
+            awaitCalls();
+        } finally {
+            if (ownsExecutor) {
+                shutdown(executor);
+            }
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                // Otherwise recorded as the group's failure by the call itself.
+            } catch (CancellationException e) {
+                // Cancelled because another call failed.
+            } catch (InterruptedException e) {
+                // Can't happen: every call has returned.
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    private void callReturned() {
+        synchronized (callsLock) {
+            runningCalls--;
+            if (runningCalls == 0) {
+                callsLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wait for every call to return. If the waiting thread is interrupted, the group is cancelled
+     * and the wait goes on until the cancelled calls have returned too.
+     */
+    private void awaitCalls() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                synchronized (callsLock) {
+                    while (runningCalls > 0) {
+                        callsLock.wait();
+                    }
+                }
+                break;
+            } catch (InterruptedException e) {
+                if (!interrupted) {
+                    interrupted = true;
+                    fail(new ApiException(e));
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void shutdown(final ExecutorService executor) {
+        executor.shutdownNow();
+        boolean interrupted = Thread.interrupted();
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Cancel every call in the group that hasn't finished yet.
+     */
+    public void cancel() {
+        fail(new ApiException(new CancellationException("The group was cancelled")));
+    }
+
+    private void fail(final ApiException error) {
+        if (!failure.compareAndSet(null, error)) {
+            return;
+        }
+        for (ApiResult result : inFlight) {
+            result.cancel();
+        }
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.mediawiki.api.json;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Adapts the number of items (titles, page ids, revision ids, or a *limit parameter) requested at once.
+ *
+ * The batch size grows while the number of items handled per second keeps up, and backs off when
+ * throughput drops, when responses get close to the server's result size limit or come back truncated
+ * with a continuation, or when the server reports replication lag through maxlag. After backing off,
+ * the size that caused it is only approached again gradually, so the controller settles just below it.
+ *
+ * Instances are thread-safe and can be shared by requests running in parallel.
+ */
+public class BatchSizeController {
+    /**
+     * Maximum number of values of a multi-value parameter (titles, pageids, revids) for ordinary users.
+     */
+    public static final int DEFAULT_LIMIT = 50;
+    /**
+     * Maximum number of values of a multi-value parameter for users with the apihighlimits right.
+     */
+    public static final int HIGH_LIMIT = 500;
+    /**
+     * Maximum of a list or generator limit parameter (e.g. gcmlimit) for ordinary users.
+     */
+    public static final int DEFAULT_LIST_LIMIT = 500;
+    /**
+     * Maximum of a list or generator limit parameter for users with the apihighlimits right.
+     */
+    public static final int HIGH_LIST_LIMIT = 5000;
+
+    /**
+     * Factor by which the apihighlimits right raises every limit.
+     */
+    private static final int HIGH_LIMITS_FACTOR = 10;
+
+    private static final int DEFAULT_INITIAL_SIZE = 10;
+    /**
+     * Default for $wgAPIMaxResultSize, beyond which MediaWiki truncates results.
+     */
+    private static final long DEFAULT_MAX_RESPONSE_BYTES = 8 * 1024 * 1024;
+    private static final double RESPONSE_HEADROOM = 0.75;
+    private static final double GROWTH = 1.5;
+    private static final double SHRINK = 0.5;
+    private static final double TOLERANCE = 0.9;
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    /**
+     * Largest batch size for users without the apihighlimits right, as given to the constructor.
+     */
+    private final int normalMaxSize;
+    private int maxSize;
+    private int size;
+
+    /**
+     * Largest size currently allowed. Lowered to just below a size that overloaded a response,
+     * and raised by one every time a batch of this size is handled without trouble.
+     */
+    private int ceiling;
+
+    /**
+     * Best throughput, in items per second, seen since the size last had to back off.
+     */
+    private double bestRate;
+
+    private long maxResponseBytes = DEFAULT_MAX_RESPONSE_BYTES;
+    private long targetLatencyMillis;
+
+    /**
+     * Create a controller with default limits, suitable for users without the apihighlimits right.
+     */
+    public BatchSizeController() {
+        this(DEFAULT_INITIAL_SIZE, DEFAULT_LIMIT);
+    }
+
+    /**
+     * Create a controller.
+     *
+     * @param initialSize Batch size to start with.
+     * @param maxSize Largest batch size to use, e.g. {@link #DEFAULT_LIMIT} for a multi-value parameter or
+     *                {@link #DEFAULT_LIST_LIMIT} for a limit parameter. {@link #setHighLimits(boolean)} raises it
+     *                tenfold, as the apihighlimits right does.
+     */
+    public BatchSizeController(final int initialSize, final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.normalMaxSize = maxSize;
+        this.maxSize = maxSize;
+        this.ceiling = maxSize;
+        this.size = Math.max(1, Math.min(initialSize, maxSize));
+    }
+
+    /**
+     * @return Number of items to put in the next request.
+     */
+    public synchronized int getBatchSize() {
+        return size;
+    }
+
+    /**
+     * @return Largest batch size this controller will use.
+     */
+    public synchronized int getMaxBatchSize() {
+        return maxSize;
+    }
+
+    /**
+     * Set the largest batch size according to whether the user has the apihighlimits right.
+     *
+     * @param highLimits true to allow ten times the maximum size given to the constructor, e.g.
+     *                   {@link #HIGH_LIMIT} instead of {@link #DEFAULT_LIMIT}, false for that maximum size.
+     */
+    public synchronized void setHighLimits(boolean highLimits) {
+        maxSize = highLimits ? normalMaxSize * HIGH_LIMITS_FACTOR : normalMaxSize;
+        ceiling = maxSize;
+        size = Math.min(size, maxSize);
+    }
+
+    /**
+     * Query the rights of the current user and set the largest batch size accordingly.
+     *
+     * @param api The Api that the batched requests are made with.
+     * @throws ApiException Thrown in the case of any error(s) querying the user's rights.
+     */
+    public void detectHighLimits(final Api api) throws ApiException {
+        JSONObject query = api.action("query")
+                .param("meta", "userinfo")
+                .param("uiprop", "rights")
+                .get().asObject().optJSONObject("query");
+        JSONObject userInfo = query == null ? null : query.optJSONObject("userinfo");
+        JSONArray rights = userInfo == null ? null : userInfo.optJSONArray("rights");
+        boolean highLimits = false;
+        for (int i = 0; rights != null && i < rights.length(); i++) {
+            if ("apihighlimits".equals(rights.optString(i))) {
+                highLimits = true;
+            }
+        }
+        setHighLimits(highLimits);
+    }
+
+    /**
+     * Set the response size that batches should stay well under. Defaults to 8 MiB, MediaWiki's
+     * default result size limit.
+     *
+     * @param maxResponseBytes Response size in bytes at which results would be truncated.
+     */
+    public synchronized void setMaxResponseBytes(long maxResponseBytes) {
+        this.maxResponseBytes = maxResponseBytes;
+    }
+
+    /**
+     * Set the latency above which batches are made smaller, regardless of throughput.
+     *
+     * @param targetLatencyMillis Latency in milliseconds, or 0 (the default) for no target.
+     */
+    public synchronized void setTargetLatency(long targetLatencyMillis) {
+        this.targetLatencyMillis = targetLatencyMillis;
+    }
+
+    /**
+     * Record the outcome of a batched request and adjust the batch size.
+     *
+     * @param items Number of items the response covered.
+     * @param latencyMillis Time taken by the request, in milliseconds.
+     * @param responseBytes Size of the response body, e.g. {@link ApiResult#getBodyLength()}.
+     * @param truncated true if the response did not cover the whole batch and needs a continuation.
+     */
+    public synchronized void onResponse(int items, long latencyMillis, long responseBytes, boolean truncated) {
+        if (truncated
+                || responseBytes > maxResponseBytes * RESPONSE_HEADROOM
+                || targetLatencyMillis > 0 && latencyMillis > targetLatencyMillis) {
+            backOff();
+            return;
+        }
+        if (size >= ceiling && ceiling < maxSize) {
+            ceiling++;
+        }
+        double rate = items * MILLIS_PER_SECOND / Math.max(latencyMillis, 1);
+        if (rate >= bestRate * TOLERANCE) {
+            bestRate = Math.max(bestRate, rate);
+            size = Math.min(ceiling, Math.max(size + 1, (int) (size * GROWTH)));
+        } else {
+            bestRate = rate;
+            size = Math.max(1, (int) (size / GROWTH));
+        }
+    }
+
+    /**
+     * Record that the server refused a request because of replication lag (a maxlag error).
+     */
+    public synchronized void onLag() {
+        backOff();
+    }
+
+    private void backOff() {
+        ceiling = Math.max(1, size - 1);
+        size = Math.max(1, (int) (size * SHRINK));
+        bestRate = 0;
+    }
+}
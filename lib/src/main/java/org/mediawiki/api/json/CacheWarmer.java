@@ -0,0 +1,221 @@
+package org.mediawiki.api.json;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads a declared set of GET requests into an {@link Api}'s response cache, e.g. at startup.
+ *
+ * The manifest is a JSON array of parameter sets, each one a request as it would be built with
+ * {@link RequestBuilder}, for example:
+ * <pre>
+ * [
+ *     {"action": "query", "meta": "siteinfo", "siprop": "general|namespaces"},
+ *     {"action": "query", "meta": "allmessages", "amenableparser": "1"}
+ * ]
+ * </pre>
+ *
+ * Each request is marked {@link RequestBuilder#cacheable()}, so the same request made later with
+ * <code>cacheable()</code> is served from the cache.
+ *
+ * Requests are made in parallel and given a fixed time budget, after which any that are still
+ * running are cancelled. Once the warm-up has finished the warmer reports itself ready, whether or
+ * not every request succeeded, and even if the manifest could not be parsed; use
+ * {@link #getError()} and {@link #getFailedCount()} to tell.
+ */
+public class CacheWarmer {
+    private static final long DEFAULT_BUDGET_MILLIS = 30000;
+
+    private final Api api;
+    private final int parallelism;
+    private long budgetMillis = DEFAULT_BUDGET_MILLIS;
+
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private final AtomicInteger loaded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private volatile ApiException error;
+
+    /**
+     * Guards the counters, so that requests finishing after the warm-up has ended are not counted.
+     */
+    private final Object countLock = new Object();
+    private boolean finished;
+
+    /**
+     * Results of the requests still in progress, so they can be cancelled when the budget runs out.
+     */
+    private final Set<ApiResult> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<ApiResult, Boolean>());
+
+    /**
+     * Create a cache warmer.
+     *
+     * @param api The Api whose response cache is to be filled. It must have a response cache set.
+     * @param parallelism Number of requests to make concurrently.
+     */
+    public CacheWarmer(final Api api, final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.api = api;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Set the time allowed for the whole warm-up. Defaults to 30 seconds.
+     *
+     * @param budgetMillis Time in milliseconds after which outstanding requests are cancelled.
+     */
+    public void setBudget(long budgetMillis) {
+        this.budgetMillis = budgetMillis;
+    }
+
+    /**
+     * Make every request in the manifest and wait for them to finish or for the budget to run out.
+     *
+     * @param manifest Reader over the JSON manifest. It is not closed.
+     * @return true if every request in the manifest was loaded into the cache.
+     * @throws ApiException Thrown if the manifest cannot be parsed, or the warm-up is interrupted.
+     */
+    public boolean warmUp(final Reader manifest) throws ApiException {
+        if (api.getResponseCache() == null) {
+            throw new IllegalStateException("The Api has no response cache to warm up");
+        }
+        TraceSpan operation = api.startOperation("warmUp");
+        List<Callable<Void>> requests = new ArrayList<Callable<Void>>();
+        ExecutorService executor = null;
+        try {
+            try {
+                JSONArray entries = new JSONArray(new JSONTokener(manifest));
+                for (int i = 0; i < entries.length(); i++) {
+                    requests.add(request(entries.getJSONObject(i), operation));
+                }
+            } catch (Exception e) {
+                throw abort(operation, new ApiException(e));
+            }
+            executor = Executors.newFixedThreadPool(parallelism);
+            executor.invokeAll(requests, budgetMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw abort(operation, new ApiException(e));
+        } finally {
+            for (ApiResult result : inFlight) {
+                result.cancel();
+            }
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            synchronized (countLock) {
+                // Requests cancelled before they started, or still running, never counted themselves.
+                finished = true;
+                failed.set(requests.size() - loaded.get());
+            }
+            operation.setAttribute("loaded", Integer.toString(loaded.get()));
+            operation.setAttribute("failed", Integer.toString(failed.get()));
+            operation.end();
+            ready.countDown();
+        }
+        return loaded.get() == requests.size();
+    }
+
+    private ApiException abort(final TraceSpan operation, final ApiException exception) {
+        error = exception;
+        operation.setError(exception);
+        return exception;
+    }
+
+    private Callable<Void> request(final JSONObject entry, final TraceSpan operation) {
+        final RequestBuilder builder = api.action(entry.getString("action")).trace(operation).cacheable();
+        Iterator<?> keys = entry.keys();
+        while (keys.hasNext()) {
+            String key = (String) keys.next();
+            builder.param(key, entry.optString(key));
+        }
+        return new Callable<Void>() {
+            @Override
+            public Void call() {
+                ApiResult result = null;
+                try {
+                    result = builder.get();
+                    inFlight.add(result);
+                    result.asObject();
+                    // A response spooled to disk by the spill threshold is not cached.
+                    count(result.isInCache() ? loaded : failed);
+                } catch (ApiException e) {
+                    count(failed);
+                } finally {
+                    if (result != null) {
+                        inFlight.remove(result);
+                        result.release();
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    private void count(final AtomicInteger counter) {
+        synchronized (countLock) {
+            if (!finished) {
+                counter.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return true once the warm-up has finished.
+     */
+    public boolean isReady() {
+        return ready.getCount() == 0;
+    }
+
+    /**
+     * Wait for the warm-up to finish, e.g. from the thread that decides whether to take traffic.
+     *
+     * @param timeout Maximum time to wait.
+     * @param unit Unit of the timeout.
+     * @return true if the warm-up finished, false if the timeout elapsed first.
+     * @throws InterruptedException Thrown if the waiting thread is interrupted.
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return ready.await(timeout, unit);
+    }
+
+    /**
+     * @return The error that stopped the warm-up before all requests were made, e.g. because the manifest
+     *         could not be parsed, or null if there was none.
+     */
+    public ApiException getError() {
+        return error;
+    }
+
+    /**
+     * @return Number of requests that have been loaded into the cache.
+     */
+    public int getLoadedCount() {
+        return loaded.get();
+    }
+
+    /**
+     * @return Number of requests that failed or whose response could not be cached, e.g. because it was over
+     *         the Api's spill threshold. This includes any that were cancelled or had not started when the
+     *         budget ran out.
+     */
+    public int getFailedCount() {
+        return failed.get();
+    }
+}
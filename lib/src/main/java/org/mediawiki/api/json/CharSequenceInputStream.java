@@ -0,0 +1,76 @@
+package org.mediawiki.api.json;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Stream of the UTF-8 encoding of a CharSequence, encoded a buffer at a time as it is read.
+ *
+ * Lets large text be written to a request body without building a byte array of all of it.
+ */
+final class CharSequenceInputStream extends InputStream {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int BYTE_MASK = 0xff;
+
+    private final CharBuffer chars;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer bytes;
+    private boolean flushed;
+
+    /**
+     * Create a stream over the given text.
+     *
+     * @param text Text to encode. It must not change while the stream is being read.
+     */
+    CharSequenceInputStream(final CharSequence text) {
+        chars = CharBuffer.wrap(text);
+        encoder = Charset.forName("UTF-8").newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        bytes.flip();
+    }
+
+    @Override
+    public int read() {
+        byte[] single = new byte[1];
+        if (read(single, 0, 1) == -1) {
+            return -1;
+        }
+        return single[0] & BYTE_MASK;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (!bytes.hasRemaining() && !fill()) {
+            return -1;
+        }
+        int count = Math.min(length, bytes.remaining());
+        bytes.get(buffer, offset, count);
+        return count;
+    }
+
+    /**
+     * Encode the next part of the text into the byte buffer.
+     *
+     * @return false if the whole text has already been read.
+     */
+    private boolean fill() {
+        bytes.clear();
+        if (chars.hasRemaining()) {
+            encoder.encode(chars, bytes, true);
+        }
+        if (!chars.hasRemaining() && !flushed) {
+            flushed = !encoder.flush(bytes).isOverflow();
+        }
+        bytes.flip();
+        return bytes.hasRemaining();
+    }
+}
@@ -0,0 +1,481 @@
+package org.mediawiki.api.json;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports the content of every page listed by a generator, fetching batches of pages in parallel.
+ *
+ * The generator request is paged through continuation on the calling thread. The pages it lists
+ * are split into batches whose content is fetched concurrently, and the resulting page records are
+ * handed to an {@link ExportSink} in a defined order: page by page of the generator's continuation,
+ * and within each page by the generator's index where it provides one (e.g. generator=search), or
+ * by page id otherwise. At most a few batches per thread are kept in flight, so a slow sink holds
+ * back fetching instead of letting records pile up in memory.
+ *
+ * All requests are made with formatversion=2, so page records are in that format.
+ *
+ * Batch sizes can be tuned as the export runs by installing a {@link BatchSizeController}.
+ * Requests refused with a maxlag error are retried after the delay the server asks for. If the
+ * export fails, the requests still in progress are cancelled, and export returns only once every
+ * worker has stopped.
+ */
+public class ContentExporter {
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final int PENDING_BATCHES_PER_THREAD = 2;
+    private static final int MAX_LAG_RETRIES = 5;
+    private static final long DEFAULT_RETRY_AFTER_SECONDS = 5;
+    private static final long MILLIS_PER_SECOND = 1000;
+    private static final long NANOS_PER_MILLI = 1000000;
+
+    /**
+     * Order in which the pages of one generator response are exported: by the generator's index
+     * if it has one, and by page id otherwise.
+     */
+    private static final Comparator<JSONObject> GENERATOR_ORDER = new Comparator<JSONObject>() {
+        @Override
+        public int compare(JSONObject a, JSONObject b) {
+            int byIndex = Long.compare(a.optLong("index", Long.MAX_VALUE), b.optLong("index", Long.MAX_VALUE));
+            return byIndex != 0 ? byIndex : Long.compare(a.optLong("pageid"), b.optLong("pageid"));
+        }
+    };
+
+    /**
+     * Api with which all requests are made.
+     */
+    private final Api api;
+
+    /**
+     * Number of content batches fetched concurrently.
+     */
+    private final int parallelism;
+
+    /**
+     * Number of pages whose content is requested at once.
+     */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * Parameters of the content requests, besides the list of page ids.
+     */
+    private final Map<String, String> contentParams;
+
+    /**
+     * Controller sizing the content batches, or null to use the fixed batch size.
+     */
+    private BatchSizeController batchSizeController;
+
+    /**
+     * Limit parameter of the generator (e.g. gcmlimit), or null to leave the generator's limit alone.
+     */
+    private String generatorLimitParam;
+
+    /**
+     * Controller setting the generator limit parameter.
+     */
+    private BatchSizeController generatorLimitController;
+
+    /**
+     * Create an exporter.
+     *
+     * @param api The Api to export content from.
+     * @param parallelism Number of content batches to fetch concurrently.
+     */
+    public ContentExporter(final Api api, final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.api = api;
+        this.parallelism = parallelism;
+        contentParams = new LinkedHashMap<String, String>();
+        contentParams.put("prop", "revisions");
+        contentParams.put("rvprop", "ids|timestamp|content");
+    }
+
+    /**
+     * Set the number of pages whose content is requested at once. Defaults to 50, the
+     * usual limit for requests without the apihighlimits right.
+     *
+     * @param batchSize Number of page ids per content request.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Size content batches adaptively instead of using the fixed batch size.
+     *
+     * @param controller Controller sizing the content batches, or null to use the fixed batch size.
+     */
+    public void setBatchSizeController(BatchSizeController controller) {
+        batchSizeController = controller;
+    }
+
+    /**
+     * Set the generator's limit parameter adaptively on every page of the generator's continuation.
+     *
+     * @param param Name of the generator's limit parameter, e.g. gcmlimit for generator=categorymembers.
+     * @param controller Controller setting the limit, e.g. one with a maximum size of
+     *                   {@link BatchSizeController#DEFAULT_LIST_LIMIT}.
+     */
+    public void setGeneratorLimit(String param, BatchSizeController controller) {
+        generatorLimitParam = param;
+        generatorLimitController = controller;
+    }
+
+    /**
+     * Set a parameter sent with every content request, e.g. to change rvprop or add rvslots.
+     *
+     * @param key Parameter's name
+     * @param value Parameter's value
+     */
+    public void setContentParam(String key, String value) {
+        contentParams.put(key, value);
+    }
+
+    /**
+     * Export every page listed by the generator request to the sink.
+     *
+     * The generator request should be an action=query request with a generator set, e.g.
+     * <code>api.action("query").param("generator", "categorymembers").param("gcmtitle", "Category:Foo")</code>.
+     * Only the listed page ids are used, so its prop parameter is dropped: a pending prop continuation
+     * (e.g. for prop=revisions) would make the generator list the same pages again. The generator
+     * request itself is not modified, and is always sent with formatversion=2.
+     *
+     * @param generator Request listing the pages to export.
+     * @param sink Destination of the page records.
+     * @return Number of page records written to the sink.
+     * @throws ApiException Thrown in the case of any error(s), including errors writing to the sink.
+     */
+    public int export(final RequestBuilder generator, final ExportSink sink) throws ApiException {
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        final Deque<Future<List<JSONObject>>> pending = new ArrayDeque<Future<List<JSONObject>>>();
+        final TraceSpan operation = api.startOperation("export");
+        // Results of the requests in progress, so they can be cancelled if the export fails.
+        final Set<ApiResult> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<ApiResult, Boolean>());
+        int exported = 0;
+        try {
+            Map<String, String> params = new LinkedHashMap<String, String>(generator.getParams());
+            params.remove("prop");
+            if (!params.containsKey("continue")) {
+                params.put("continue", "");
+            }
+            params.put("formatversion", "2");
+            while (params != null) {
+                if (generatorLimitParam != null) {
+                    params.put(generatorLimitParam, Integer.toString(generatorLimitController.getBatchSize()));
+                }
+                Response response = fetch(params, operation, inFlight);
+                List<JSONObject> listed = new ArrayList<JSONObject>();
+                for (JSONObject page : pagesOf(response.json)) {
+                    if (page.has("pageid")) {
+                        listed.add(page);
+                    }
+                }
+                Collections.sort(listed, GENERATOR_ORDER);
+                List<String> pageIds = new ArrayList<String>(listed.size());
+                for (JSONObject page : listed) {
+                    pageIds.add(page.optString("pageid"));
+                }
+                if (generatorLimitParam != null) {
+                    generatorLimitController.onResponse(pageIds.size(), response.latencyMillis, response.bytes, false);
+                }
+                int start = 0;
+                while (start < pageIds.size()) {
+                    if (pending.size() >= parallelism * PENDING_BATCHES_PER_THREAD) {
+                        exported += write(pending.removeFirst(), sink);
+                    }
+                    int end = Math.min(start + nextBatchSize(), pageIds.size());
+                    final List<String> batch = new ArrayList<String>(pageIds.subList(start, end));
+                    pending.addLast(executor.submit(new Callable<List<JSONObject>>() {
+                        @Override
+                        public List<JSONObject> call() throws ApiException {
+                            return fetchContent(batch, operation, inFlight);
+                        }
+                    }));
+                    start = end;
+                }
+                params = continuation(params, response.json);
+            }
+            while (!pending.isEmpty()) {
+                exported += write(pending.removeFirst(), sink);
+            }
+            operation.setAttribute("pages", Integer.toString(exported));
+            return exported;
+        } catch (ApiException e) {
+            operation.setError(e);
+            throw e;
+        } finally {
+            for (Future<List<JSONObject>> future : pending) {
+                future.cancel(true);
+            }
+            executor.shutdownNow();
+            for (ApiResult result : inFlight) {
+                result.cancel();
+            }
+            awaitTermination(executor);
+            operation.end();
+        }
+    }
+
+    /**
+     * Wait for the workers to stop, so that no requests are made once export() has returned.
+     */
+    private static void awaitTermination(final ExecutorService executor) {
+        boolean interrupted = false;
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int nextBatchSize() {
+        return batchSizeController == null ? batchSize : batchSizeController.getBatchSize();
+    }
+
+    /**
+     * Wait for a batch to be fetched and write its pages to the sink.
+     */
+    private int write(final Future<List<JSONObject>> batch, final ExportSink sink) throws ApiException {
+        List<JSONObject> pages;
+        try {
+            pages = batch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ApiException) {
+                throw (ApiException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new ApiException((Exception) e.getCause());
+        }
+        try {
+            for (JSONObject page : pages) {
+                sink.write(page);
+            }
+        } catch (IOException e) {
+            throw new ApiException(e);
+        }
+        return pages.size();
+    }
+
+    /**
+     * Fetch the content of a batch of pages, following continuation until all revisions are in.
+     *
+     * @return The pages, in the order of the given ids.
+     */
+    private List<JSONObject> fetchContent(final List<String> pageIds, final TraceSpan operation,
+                                          final Set<ApiResult> inFlight) throws ApiException {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("action", "query");
+        params.putAll(contentParams);
+        params.put("pageids", join(pageIds));
+        params.put("continue", "");
+        params.put("formatversion", "2");
+
+        Map<String, JSONObject> pages = new LinkedHashMap<String, JSONObject>();
+        while (params != null) {
+            Response response = fetch(params, operation, inFlight);
+            int revisionCount = 0;
+            for (JSONObject page : pagesOf(response.json)) {
+                if (page.has("revisions")) {
+                    revisionCount++;
+                }
+                String pageId = page.optString("pageid");
+                JSONObject existing = pages.get(pageId);
+                if (existing == null) {
+                    pages.put(pageId, page);
+                } else {
+                    mergeRevisions(existing, page);
+                }
+            }
+            params = continuation(params, response.json);
+            if (batchSizeController != null) {
+                batchSizeController.onResponse(revisionCount, response.latencyMillis, response.bytes, params != null);
+            }
+        }
+
+        List<JSONObject> ordered = new ArrayList<JSONObject>(pageIds.size());
+        for (String pageId : pageIds) {
+            JSONObject page = pages.get(pageId);
+            if (page != null) {
+                ordered.add(page);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Perform a GET request, retrying it if the server is lagged.
+     *
+     * The request's result is kept in inFlight while it is read, so that a failed export can cancel
+     * it. An interrupted thread makes no further requests, which stops a batch between continuations.
+     */
+    private Response fetch(final Map<String, String> params, final TraceSpan operation,
+                           final Set<ApiResult> inFlight) throws ApiException {
+        for (int attempt = 0;; attempt++) {
+            RequestBuilder request = new RequestBuilder(api, params.get("action")).trace(operation);
+            for (Map.Entry<String, String> entry : params.entrySet()) {
+                request.param(entry.getKey(), entry.getValue());
+            }
+            long start = System.nanoTime();
+            ApiResult result = request.get();
+            inFlight.add(result);
+            try {
+                if (Thread.currentThread().isInterrupted()) {
+                    result.cancel();
+                    throw new ApiException(new InterruptedException("The export was aborted"));
+                }
+                JSONObject json = result.asObject();
+                return new Response(json, (System.nanoTime() - start) / NANOS_PER_MILLI, result.getBodyLength());
+            } catch (ApiException e) {
+                if (!"maxlag".equals(e.getCode()) || attempt >= MAX_LAG_RETRIES) {
+                    throw e;
+                }
+                if (batchSizeController != null) {
+                    batchSizeController.onLag();
+                }
+                sleep(retryAfterMillis(result));
+            } finally {
+                inFlight.remove(result);
+                result.release();
+            }
+        }
+    }
+
+    private static long retryAfterMillis(final ApiResult result) {
+        List<String> retryAfter = result.getHeaders().get("Retry-After");
+        if (retryAfter != null && !retryAfter.isEmpty()) {
+            try {
+                return Long.parseLong(retryAfter.get(0).trim()) * MILLIS_PER_SECOND;
+            } catch (NumberFormatException e) {
+                // Not a number of seconds; fall back to the default delay.
+            }
+        }
+        return DEFAULT_RETRY_AFTER_SECONDS * MILLIS_PER_SECOND;
+    }
+
+    private static void sleep(final long millis) throws ApiException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(e);
+        }
+    }
+
+    /**
+     * @return The parameters for the next request in a continuation, or null if there are no more results.
+     */
+    private static Map<String, String> continuation(final Map<String, String> params, final JSONObject response) {
+        JSONObject cont = response.optJSONObject("continue");
+        if (cont == null) {
+            return null;
+        }
+        Map<String, String> next = new LinkedHashMap<String, String>(params);
+        Iterator<?> keys = cont.keys();
+        while (keys.hasNext()) {
+            String key = (String) keys.next();
+            next.put(key, cont.optString(key));
+        }
+        return next;
+    }
+
+    /**
+     * @return The pages of a query response, whether given as an object (formatversion=1) or array (formatversion=2).
+     */
+    private static List<JSONObject> pagesOf(final JSONObject response) {
+        List<JSONObject> pages = new ArrayList<JSONObject>();
+        JSONObject query = response.optJSONObject("query");
+        if (query == null) {
+            return pages;
+        }
+        JSONArray pageArray = query.optJSONArray("pages");
+        if (pageArray != null) {
+            for (int i = 0; i < pageArray.length(); i++) {
+                pages.add(pageArray.optJSONObject(i));
+            }
+            return pages;
+        }
+        JSONObject pageMap = query.optJSONObject("pages");
+        if (pageMap != null) {
+            Iterator<?> keys = pageMap.keys();
+            while (keys.hasNext()) {
+                pages.add(pageMap.optJSONObject((String) keys.next()));
+            }
+        }
+        return pages;
+    }
+
+    private static void mergeRevisions(final JSONObject into, final JSONObject from) {
+        JSONArray revisions = from.optJSONArray("revisions");
+        if (revisions == null) {
+            return;
+        }
+        JSONArray existing = into.optJSONArray("revisions");
+        if (existing == null) {
+            into.put("revisions", revisions);
+            return;
+        }
+        for (int i = 0; i < revisions.length(); i++) {
+            existing.put(revisions.opt(i));
+        }
+    }
+
+    private static String join(final List<String> values) {
+        StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            if (joined.length() > 0) {
+                joined.append('|');
+            }
+            joined.append(value);
+        }
+        return joined.toString();
+    }
+
+    /**
+     * Parsed response to a single request, with what is needed to size the next batch.
+     */
+    private static final class Response {
+        private final JSONObject json;
+        private final long latencyMillis;
+        private final long bytes;
+
+        private Response(final JSONObject json, final long latencyMillis, final long bytes) {
+            this.json = json;
+            this.latencyMillis = latencyMillis;
+            this.bytes = bytes;
+        }
+    }
+}
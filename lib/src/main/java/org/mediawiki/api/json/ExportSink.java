@@ -0,0 +1,21 @@
+package org.mediawiki.api.json;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * Destination for the page records produced by a {@link ContentExporter}.
+ *
+ * Records are written one at a time from the thread that called
+ * {@link ContentExporter#export(RequestBuilder, ExportSink)}, in the order the generator listed them.
+ */
+public interface ExportSink {
+    /**
+     * Write a single page record.
+     *
+     * @param page The page, as returned by the API with its revisions merged across continuations.
+     * @throws IOException Thrown if the record could not be written. This aborts the export.
+     */
+    void write(JSONObject page) throws IOException;
+}
@@ -0,0 +1,48 @@
+package org.mediawiki.api.json;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * {@link ExportSink} writing each page as one line of JSON to a channel, e.g. a file channel.
+ *
+ * The channel is not closed by this sink.
+ */
+public class JsonLinesSink implements ExportSink {
+    private static final String ENCODING = "UTF-8";
+    private static final String LINE_SEPARATOR = "\n";
+
+    /**
+     * Channel to which records are written.
+     */
+    private final WritableByteChannel channel;
+
+    /**
+     * Create a sink writing JSON lines to the given channel.
+     *
+     * @param channel Channel to write records to.
+     */
+    public JsonLinesSink(final WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void write(JSONObject page) throws IOException {
+        ByteBuffer line = encode(page.toString() + LINE_SEPARATOR);
+        while (line.hasRemaining()) {
+            channel.write(line);
+        }
+    }
+
+    private ByteBuffer encode(String line) {
+        try {
+            return ByteBuffer.wrap(line.getBytes(ENCODING));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
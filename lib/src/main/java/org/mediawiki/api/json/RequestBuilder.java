@@ -1,5 +1,7 @@
 package org.mediawiki.api.json;
 
+import java.io.File;
+import java.io.InputStream;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -15,11 +17,27 @@ public class RequestBuilder {
      */
     private final LinkedHashMap<String, String> params;
 
+    /**
+     * LinkedHashMap holding the parameters whose values are streamed into a POST body
+     * rather than held as Strings: CharSequences, Files and InputStreams.
+     */
+    private final LinkedHashMap<String, Object> streamParams;
+
     /**
      * Api object with which the request being built is associated.
      */
     private final Api api;
 
+    /**
+     * Operation span the request is made for, or null to use the thread's current operation.
+     */
+    private TraceSpan traceParent;
+
+    /**
+     * Whether the response may be served from and added to the Api's response cache.
+     */
+    private boolean cacheable;
+
     /**
      * Create a new RequestBuilder to build API requests.
      *
@@ -29,6 +47,7 @@ public class RequestBuilder {
     RequestBuilder(final Api apiToUse, final String action) {
         this.api = apiToUse;
         params = new LinkedHashMap<String, String>(INITIAL_CAPACITY, LOAD_FACTOR, false);
+        streamParams = new LinkedHashMap<String, Object>();
         params.put("action", action); // put action first to match robots.txt whitelist of action=mobileview for app search indexing
         params.put("format", "json"); // Force everything to be JSON
     }
@@ -48,10 +67,106 @@ public class RequestBuilder {
      * @return The `this` object, so you can chain params together
      */
     public RequestBuilder param(final String key, final String value) {
+        streamParams.remove(key);
         params.put(key, value);
         return this;
     }
 
+    /**
+     * @return A copy of the current set of streamed parameters for this request
+     */
+    Map<String, Object> getStreamParams() {
+        return new LinkedHashMap<String, Object>(streamParams);
+    }
+
+    /**
+     * Add a parameter whose text is streamed into the request body as it is sent, e.g. the
+     * wikitext of a large edit.
+     *
+     * Requests with streamed parameters must be made with {@link #post()}, and are sent as
+     * multipart/form-data in chunks, without building the whole body in memory.
+     *
+     * @param key Parameter's name
+     * @param value Parameter's value. It must not change until the request has been sent.
+     * @return The `this` object, so you can chain params together
+     */
+    public RequestBuilder streamParam(final String key, final CharSequence value) {
+        return putStreamParam(key, value);
+    }
+
+    /**
+     * Add a parameter whose value is streamed from a file, sent as a file upload with the file's name,
+     * e.g. the file parameter of action=upload.
+     *
+     * Requests with streamed parameters must be made with {@link #post()}.
+     *
+     * @param key Parameter's name
+     * @param value File to upload
+     * @return The `this` object, so you can chain params together
+     */
+    public RequestBuilder streamParam(final String key, final File value) {
+        return putStreamParam(key, value);
+    }
+
+    /**
+     * Add a parameter whose value is read from a stream while the request is sent. The stream is
+     * sent as an ordinary form value, and closed once it has been sent.
+     *
+     * Requests with streamed parameters must be made with {@link #post()}.
+     *
+     * @param key Parameter's name
+     * @param value Stream holding the parameter's value
+     * @return The `this` object, so you can chain params together
+     */
+    public RequestBuilder streamParam(final String key, final InputStream value) {
+        return putStreamParam(key, value);
+    }
+
+    private RequestBuilder putStreamParam(final String key, final Object value) {
+        params.remove(key);
+        streamParams.put(key, value);
+        return this;
+    }
+
+    /**
+     * Attribute the request to a traced operation, e.g. one started on another thread.
+     *
+     * @param operation Span returned by {@link Api#startOperation(String)}
+     * @return The `this` object, so you can chain params together
+     */
+    public RequestBuilder trace(final TraceSpan operation) {
+        traceParent = operation;
+        return this;
+    }
+
+    /**
+     * @return The operation span the request is made for, or null if none was set
+     */
+    TraceSpan getTraceParent() {
+        return traceParent;
+    }
+
+    /**
+     * Allow the response to this GET request to be served from the Api's response cache, and to be added to it.
+     *
+     * Only mark requests whose response is the same for every user and rarely changes, such as
+     * siteinfo or interface messages. Tokens, user info and lists of recent changes must not be cached,
+     * since they would be served unchanged for the cache's whole lifetime, even after logging in.
+     *
+     * @return The `this` object, so you can chain params together
+     */
+    public RequestBuilder cacheable() {
+        cacheable = true;
+        return this;
+    }
+
+    /**
+     * @return true if the response may be served from and added to the Api's response cache
+     */
+    boolean isCacheable() {
+        return cacheable;
+    }
+
     /**
      * Sets up the request that has been constructed so far.
      *
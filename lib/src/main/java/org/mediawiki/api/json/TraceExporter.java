@@ -0,0 +1,16 @@
+package org.mediawiki.api.json;
+
+/**
+ * Receives finished {@link TraceSpan}s, e.g. to log them or forward them to a tracing system.
+ *
+ * Install one with {@link Api#setTraceExporter(TraceExporter)}. Spans are exported from whichever
+ * thread ends them, so implementations must be thread-safe and should return quickly.
+ */
+public interface TraceExporter {
+    /**
+     * Called once for every span when it ends.
+     *
+     * @param span The finished span.
+     */
+    void export(TraceSpan span);
+}
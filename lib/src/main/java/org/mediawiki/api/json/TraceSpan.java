@@ -0,0 +1,180 @@
+package org.mediawiki.api.json;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * A timed unit of work: either a logical operation, or one HTTP request made on its behalf.
+ *
+ * Operations are started with {@link Api#startOperation(String)}, and every request made for them,
+ * including continuations, retries and parallel batches, gets a child span. All spans of an operation
+ * share its correlation ID, which is also sent to the server with each request.
+ *
+ * When no {@link TraceExporter} is installed, {@link #NOOP} is used instead, which records nothing.
+ */
+public final class TraceSpan {
+    /**
+     * Span that records nothing, used when tracing is off.
+     */
+    public static final TraceSpan NOOP = new TraceSpan(null, null, null, null, null, null);
+
+    private static final Random RANDOM = new Random();
+
+    private final TraceExporter exporter;
+    private final String name;
+    private final String spanId;
+    private final String parentId;
+    private final String correlationId;
+    private final long startMillis;
+    private final long startNanos;
+    private final Map<String, String> attributes = new LinkedHashMap<String, String>();
+    private long durationNanos = -1;
+    private Exception error;
+
+    /**
+     * Api whose current operation this span is, or null if it is a request span.
+     */
+    private final Api operationOf;
+
+    /**
+     * Operation that was current on the starting thread before this one, restored when it ends.
+     */
+    private final TraceSpan previousOperation;
+
+    private TraceSpan(final TraceExporter exporter, final String name, final String parentId,
+                      final String correlationId, final Api operationOf, final TraceSpan previousOperation) {
+        this.exporter = exporter;
+        this.name = name;
+        this.spanId = exporter == null ? null : Long.toHexString(RANDOM.nextLong());
+        this.parentId = parentId;
+        this.correlationId = correlationId;
+        this.operationOf = operationOf;
+        this.previousOperation = previousOperation;
+        this.startMillis = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Start a span with no parent, and a new correlation ID.
+     */
+    static TraceSpan root(final TraceExporter exporter, final String name, final Api operationOf,
+                          final TraceSpan previousOperation) {
+        return new TraceSpan(exporter, name, null, UUID.randomUUID().toString(), operationOf, previousOperation);
+    }
+
+    /**
+     * Start a span for a request made on behalf of this one.
+     */
+    TraceSpan child(final String childName) {
+        return new TraceSpan(exporter, childName, spanId, correlationId, null, null);
+    }
+
+    /**
+     * @return true if this span is being recorded, false for {@link #NOOP}.
+     */
+    public boolean isRecording() {
+        return exporter != null;
+    }
+
+    /**
+     * Record a piece of information about this span.
+     *
+     * @param key Name of the attribute
+     * @param value Value of the attribute
+     */
+    public synchronized void setAttribute(String key, String value) {
+        if (exporter != null) {
+            attributes.put(key, value);
+        }
+    }
+
+    /**
+     * Record that the work this span covers failed.
+     *
+     * @param exception The reason it failed.
+     */
+    public synchronized void setError(Exception exception) {
+        if (exporter != null) {
+            error = exception;
+        }
+    }
+
+    /**
+     * End this span and hand it to the exporter. Further calls have no effect.
+     */
+    public void end() {
+        synchronized (this) {
+            if (exporter == null || durationNanos >= 0) {
+                return;
+            }
+            durationNanos = System.nanoTime() - startNanos;
+        }
+        if (operationOf != null) {
+            operationOf.endOperation(this);
+        }
+        exporter.export(this);
+    }
+
+    TraceSpan getPreviousOperation() {
+        return previousOperation;
+    }
+
+    /**
+     * @return Name of the operation, or of the request's action.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Random identifier of this span.
+     */
+    public String getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * @return Identifier of the operation span this request was made for, or null for an operation.
+     */
+    public String getParentId() {
+        return parentId;
+    }
+
+    /**
+     * @return Identifier shared by an operation and all of its requests, sent to the server with each request.
+     */
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    /**
+     * @return Wall clock time at which this span started, in milliseconds since the epoch.
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * @return Time taken between the start and end of this span, in nanoseconds, or -1 if it hasn't ended.
+     */
+    public synchronized long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return A copy of the attributes recorded for this span, such as the HTTP status and cache headers.
+     */
+    public synchronized Map<String, String> getAttributes() {
+        return Collections.unmodifiableMap(new LinkedHashMap<String, String>(attributes));
+    }
+
+    /**
+     * @return The reason this span failed, or null if it succeeded.
+     */
+    public synchronized Exception getError() {
+        return error;
+    }
+}
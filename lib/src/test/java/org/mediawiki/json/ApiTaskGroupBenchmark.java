@@ -0,0 +1,85 @@
+package org.mediawiki.api.json;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares running many calls through an {@link ApiTaskGroup} on a fixed pool of platform threads
+ * with running them on {@link ApiTaskGroup#newThreadPerTaskExecutor()}.
+ *
+ * Requests never leave the JVM: a {@link StubConnectionFactory} answers each one after a fixed delay,
+ * standing in for network latency. Run with the number of calls and the delay in milliseconds as
+ * optional arguments, e.g. <code>ApiTaskGroupBenchmark 10000 100</code>. On a JVM with virtual
+ * threads the thread-per-task executor should finish in roughly one delay, while the fixed pool
+ * needs one delay per pool-sized batch of calls.
+ */
+public final class ApiTaskGroupBenchmark {
+    private static final int DEFAULT_CALLS = 2000;
+    private static final long DEFAULT_LATENCY_MILLIS = 50;
+    private static final int POOL_SIZE = 64;
+    private static final int ROUNDS = 3;
+
+    private static final String BODY = "{\"batchcomplete\": \"\", \"query\": {}}";
+
+    private ApiTaskGroupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CALLS;
+        long latencyMillis = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_LATENCY_MILLIS;
+
+        new StubConnectionFactory(latencyMillis, new StubConnectionFactory.Responder() {
+            @Override
+            public String respond(Map<String, String> params) {
+                return BODY;
+            }
+        }).install();
+        try {
+            Api api = new Api("test.wikipedia.org");
+            for (int round = 1; round <= ROUNDS; round++) {
+                ExecutorService pool = Executors.newFixedThreadPool(POOL_SIZE);
+                report(round, POOL_SIZE + " platform threads", calls, run(api, pool, calls));
+                ExecutorService perTask = ApiTaskGroup.newThreadPerTaskExecutor();
+                report(round, "thread per task", calls, run(api, perTask, calls));
+            }
+        } finally {
+            StubConnectionFactory.uninstall();
+        }
+    }
+
+    /**
+     * Run the calls in a group on the given executor, and shut it down afterwards.
+     *
+     * @return Time taken in nanoseconds.
+     */
+    private static long run(final Api api, final ExecutorService executor, int calls) throws ApiException {
+        long start = System.nanoTime();
+        try {
+            ApiTaskGroup group = new ApiTaskGroup(executor);
+            for (int i = 0; i < calls; i++) {
+                group.fork(new ApiCall<Object>() {
+                    @Override
+                    public ApiResult start() throws ApiException {
+                        return api.action("query").get();
+                    }
+
+                    @Override
+                    public Object finish(ApiResult result) throws ApiException {
+                        return result.asObject();
+                    }
+                });
+            }
+            group.join();
+        } finally {
+            executor.shutdownNow();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(int round, String executor, int calls, long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        System.out.println("round " + round + ", " + executor + ": " + calls + " calls in " + millis + " ms");
+    }
+}
@@ -0,0 +1,136 @@
+package org.mediawiki.api.json;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for running groups of calls with ApiTaskGroup.
+ *
+ * The calls either set up requests without reading them, or read them from a stub connection, so no
+ * network access is needed.
+ */
+public class ApiTaskGroupTest {
+    private static final long MAX_WAIT_SECONDS = 30;
+    private static final long CLEANUP_MILLIS = 500;
+    private static final long TIMEOUT_MILLIS = 30000;
+
+    private final Api api = new Api("test.wikipedia.org");
+
+    @Test
+    public void testJoinCollectsValues() throws Exception {
+        ApiTaskGroup group = new ApiTaskGroup();
+        Future<String> first = group.fork(call("first"));
+        Future<String> second = group.fork(call("second"));
+        group.join();
+        assertEquals("first", first.get());
+        assertEquals("second", second.get());
+    }
+
+    @Test(timeout = TIMEOUT_MILLIS)
+    public void testFailureCancelsSiblings() throws Exception {
+        // Requests take far longer than the test may, and ignore interrupts, so only ApiResult.cancel() ends them.
+        new StubConnectionFactory(TimeUnit.MINUTES.toMillis(1), new StubConnectionFactory.Responder() {
+            @Override
+            public String respond(Map<String, String> params) {
+                return "{}";
+            }
+        }).install();
+        try {
+            final CountDownLatch slowStarted = new CountDownLatch(1);
+            final AtomicReference<ApiException> slowError = new AtomicReference<ApiException>();
+            final AtomicBoolean slowReturned = new AtomicBoolean();
+            ApiTaskGroup group = new ApiTaskGroup();
+            group.fork(new ApiCall<String>() {
+                @Override
+                public ApiResult start() throws ApiException {
+                    return api.action("query").get();
+                }
+
+                @Override
+                public String finish(ApiResult result) throws ApiException {
+                    slowStarted.countDown();
+                    try {
+                        return result.asObject().toString();
+                    } catch (ApiException e) {
+                        slowError.set(e);
+                        throw e;
+                    } finally {
+                        // Clean up for a while after being cancelled, ignoring the interrupt.
+                        sleepUninterruptibly(CLEANUP_MILLIS);
+                        slowReturned.set(true);
+                    }
+                }
+            });
+            group.fork(new ApiCall<String>() {
+                @Override
+                public ApiResult start() throws ApiException {
+                    return api.action("query").get();
+                }
+
+                @Override
+                public String finish(ApiResult result) throws ApiException {
+                    await(slowStarted);
+                    throw new ApiException("boom", "");
+                }
+            });
+            try {
+                group.join();
+                fail("Expected ApiException wasn't thrown.");
+            } catch (ApiException e) {
+                assertEquals("boom", e.getCode());
+            }
+            assertTrue(slowReturned.get());
+            assertTrue(slowError.get().getCause() instanceof IOException);
+        } finally {
+            StubConnectionFactory.uninstall();
+        }
+    }
+
+    private static void sleepUninterruptibly(long millis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        boolean interrupted = false;
+        while (System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()) + 1);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) throws ApiException {
+        try {
+            assertTrue(latch.await(MAX_WAIT_SECONDS, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new ApiException(e);
+        }
+    }
+
+    private ApiCall<String> call(final String value) {
+        return new ApiCall<String>() {
+            @Override
+            public ApiResult start() throws ApiException {
+                return api.action("query").get();
+            }
+
+            @Override
+            public String finish(ApiResult result) {
+                return value;
+            }
+        };
+    }
+}
@@ -16,6 +16,9 @@ import java.io.IOException;
  * Tests that actually hit the API to return something.
  */
 public class ApiTest {
+    private static final int CACHE_SIZE = 10;
+    private static final long CACHE_TTL = 60000;
+
     @Test
     public void testBasicPost() throws Exception {
         Api api = getApi();
@@ -32,6 +35,17 @@ public class ApiTest {
         assertNull(resp.optJSONObject("error"));
     }
 
+    @Test
+    public void testStreamedPost() throws Exception {
+        Api api = getApi();
+        JSONObject resp = api.action("login")
+                .param("lgname", "doesntmatter")
+                .streamParam("lgpassword", new StringBuilder("doesntreallymattertome"))
+                .post().asObject();
+        assertEquals("NeedToken", resp.optJSONObject("login").optString("result"));
+        assertNull(resp.optJSONObject("error"));
+    }
+
     @Test
     public void testWrongMethod() throws Exception {
         try {
@@ -146,6 +160,87 @@ public class ApiTest {
         assertTrue(m.containsKey("Content-Type"));
     }
 
+    /**
+     * Test to verify that a response over the spill threshold is spooled to disk and still parses.
+     */
+    @Test
+    public void testSpilledGet() throws Exception {
+        Api api = getApi();
+        api.setSpillThreshold(0);
+        String inputText = "Test String";
+        ApiResult result = api.action("parse")
+                .param("title", "Test Title")
+                .param("text", inputText)
+                .param("prop", "wikitext")
+                .get();
+        JSONObject resp = result.asObject();
+        assertTrue(result.isSpilled());
+        assertEquals(inputText, resp.optJSONObject("parse").optJSONObject("wikitext").optString("*"));
+        assertTrue(result.asMappedBuffer().remaining() > 0);
+        result.release();
+        assertFalse(result.isSpilled());
+    }
+
+    /**
+     * Test to verify that a repeated GET is served from the response cache.
+     */
+    @Test
+    public void testResponseCache() throws Exception {
+        Api api = getApi();
+        ApiResponseCache cache = new ApiResponseCache(CACHE_SIZE, CACHE_TTL);
+        api.setResponseCache(cache);
+        String inputText = "Test String";
+        for (int i = 0; i < 2; i++) {
+            JSONObject resp = api.action("parse")
+                    .param("title", "Test Title")
+                    .param("text", inputText)
+                    .param("prop", "wikitext")
+                    .cacheable()
+                    .get().asObject();
+            assertEquals(inputText, resp.optJSONObject("parse").optJSONObject("wikitext").optString("*"));
+            assertEquals(1, cache.size());
+        }
+    }
+
+    /**
+     * Test to verify that only requests marked cacheable are served from the response cache.
+     */
+    @Test
+    public void testResponseCacheOptIn() throws Exception {
+        StubConnectionFactory connections = new StubConnectionFactory(0, new StubConnectionFactory.Responder() {
+            @Override
+            public String respond(Map<String, String> params) {
+                return "{\"query\": {}}";
+            }
+        });
+        connections.install();
+        try {
+            Api api = getApi();
+            api.setResponseCache(new ApiResponseCache(CACHE_SIZE, CACHE_TTL));
+            for (int i = 0; i < 2; i++) {
+                api.action("query").param("meta", "siteinfo").cacheable().get().asObject();
+                api.action("query").param("meta", "tokens").get().asObject();
+            }
+            assertEquals(1 + 2, connections.getRequestCount());
+            assertEquals(1, api.getResponseCache().size());
+        } finally {
+            StubConnectionFactory.uninstall();
+        }
+    }
+
+    /**
+     * Test to verify that a shared response cache keeps apart requests to different wikis or with different headers.
+     */
+    @Test
+    public void testCacheKey() {
+        Map<String, String> params = new HashMap<>();
+        params.put("action", "query");
+        String key = getApi().cacheKey(params);
+        assertEquals(key, getApi().cacheKey(params));
+        assertFalse(key.equals(new Api("en.wikipedia.org", "java-mwapi-UA").cacheKey(params)));
+        assertFalse(key.equals(new Api("test.wikipedia.org", "java-mwapi-UA").cacheKey(params)));
+    }
+
     /**
      * Test to verify that accessing headers before asObject throws.
      */
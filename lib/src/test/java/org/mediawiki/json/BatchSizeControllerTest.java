@@ -0,0 +1,67 @@
+package org.mediawiki.api.json;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for how BatchSizeController adapts batch sizes.
+ */
+public class BatchSizeControllerTest {
+    private static final long LATENCY = 100;
+    private static final long SMALL_RESPONSE = 1000;
+    private static final int ROUNDS = 20;
+    private static final int INITIAL_SIZE = 40;
+    private static final int HALVED_SIZE = INITIAL_SIZE / 2;
+    private static final int QUARTERED_SIZE = HALVED_SIZE / 2;
+
+    @Test
+    public void testGrowsUpToLimit() throws Exception {
+        BatchSizeController controller = new BatchSizeController();
+        for (int i = 0; i < ROUNDS; i++) {
+            controller.onResponse(controller.getBatchSize(), LATENCY, SMALL_RESPONSE, false);
+        }
+        assertEquals(BatchSizeController.DEFAULT_LIMIT, controller.getBatchSize());
+    }
+
+    @Test
+    public void testShrinksWhenTruncated() throws Exception {
+        BatchSizeController controller = new BatchSizeController(INITIAL_SIZE, BatchSizeController.DEFAULT_LIMIT);
+        controller.onResponse(INITIAL_SIZE, LATENCY, SMALL_RESPONSE, true);
+        assertEquals(HALVED_SIZE, controller.getBatchSize());
+        for (int i = 0; i < 2; i++) {
+            controller.onResponse(controller.getBatchSize(), LATENCY, SMALL_RESPONSE, false);
+        }
+        assertEquals(INITIAL_SIZE - 1, controller.getBatchSize());
+        controller.onResponse(controller.getBatchSize(), LATENCY, SMALL_RESPONSE, false);
+        assertEquals(INITIAL_SIZE, controller.getBatchSize());
+    }
+
+    @Test
+    public void testShrinksOnLagAndLargeResponses() throws Exception {
+        BatchSizeController controller = new BatchSizeController(INITIAL_SIZE, BatchSizeController.DEFAULT_LIMIT);
+        controller.onLag();
+        assertEquals(HALVED_SIZE, controller.getBatchSize());
+        controller.setMaxResponseBytes(SMALL_RESPONSE);
+        controller.onResponse(HALVED_SIZE, LATENCY, SMALL_RESPONSE, false);
+        assertEquals(QUARTERED_SIZE, controller.getBatchSize());
+    }
+
+    @Test
+    public void testHighLimits() throws Exception {
+        BatchSizeController controller = new BatchSizeController();
+        controller.setHighLimits(true);
+        assertEquals(BatchSizeController.HIGH_LIMIT, controller.getMaxBatchSize());
+        controller.setHighLimits(false);
+        assertEquals(BatchSizeController.DEFAULT_LIMIT, controller.getMaxBatchSize());
+    }
+
+    @Test
+    public void testHighListLimits() throws Exception {
+        BatchSizeController controller = new BatchSizeController(INITIAL_SIZE, BatchSizeController.DEFAULT_LIST_LIMIT);
+        controller.setHighLimits(true);
+        assertEquals(BatchSizeController.HIGH_LIST_LIMIT, controller.getMaxBatchSize());
+        controller.setHighLimits(false);
+        assertEquals(BatchSizeController.DEFAULT_LIST_LIMIT, controller.getMaxBatchSize());
+    }
+}
@@ -0,0 +1,104 @@
+package org.mediawiki.api.json;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that warm up a response cache from the API.
+ */
+public class CacheWarmerTest {
+    private static final int CACHE_SIZE = 10;
+    private static final long CACHE_TTL = 60000;
+
+    @Test
+    public void testWarmUp() throws Exception {
+        Api api = new Api("test.wikipedia.org", "java-mwapi-UA");
+        api.setResponseCache(new ApiResponseCache(CACHE_SIZE, CACHE_TTL));
+        CacheWarmer warmer = new CacheWarmer(api, 2);
+        assertFalse(warmer.isReady());
+
+        boolean loaded = warmer.warmUp(new StringReader(
+                "[{\"action\": \"query\", \"meta\": \"siteinfo\"},"
+                + " {\"action\": \"query\", \"meta\": \"siteinfo\", \"siprop\": \"namespaces\"}]"));
+        assertTrue(loaded);
+        assertTrue(warmer.isReady());
+        assertEquals(2, warmer.getLoadedCount());
+        assertEquals(2, api.getResponseCache().size());
+    }
+
+    @Test
+    public void testWarmUpOutOfBudget() throws Exception {
+        Api api = new Api("test.wikipedia.org", "java-mwapi-UA");
+        api.setResponseCache(new ApiResponseCache(CACHE_SIZE, CACHE_TTL));
+        CacheWarmer warmer = new CacheWarmer(api, 1);
+        warmer.setBudget(0);
+
+        boolean loaded = warmer.warmUp(new StringReader(
+                "[{\"action\": \"query\", \"meta\": \"siteinfo\"},"
+                + " {\"action\": \"query\", \"meta\": \"siteinfo\", \"siprop\": \"namespaces\"}]"));
+        assertFalse(loaded);
+        assertTrue(warmer.isReady());
+        assertEquals(0, warmer.getLoadedCount());
+        assertEquals(2, warmer.getFailedCount());
+        assertNull(warmer.getError());
+    }
+
+    @Test
+    public void testWarmUpInvalidManifest() throws Exception {
+        Api api = new Api("test.wikipedia.org", "java-mwapi-UA");
+        api.setResponseCache(new ApiResponseCache(CACHE_SIZE, CACHE_TTL));
+        CacheWarmer warmer = new CacheWarmer(api, 1);
+        try {
+            warmer.warmUp(new StringReader("{not a manifest"));
+            fail("Expected ApiException wasn't thrown.");
+        } catch (ApiException e) {
+            assertTrue(warmer.isReady());
+            assertSame(e, warmer.getError());
+            assertEquals(0, warmer.getLoadedCount());
+        }
+    }
+
+    @Test
+    public void testWarmUpSpilled() throws Exception {
+        new StubConnectionFactory(0, new StubConnectionFactory.Responder() {
+            @Override
+            public String respond(Map<String, String> params) {
+                return "{\"query\": {}}";
+            }
+        }).install();
+        File spillDirectory = Files.createTempDirectory("mwapi").toFile();
+        try {
+            Api api = new Api("test.wikipedia.org", "java-mwapi-UA");
+            api.setResponseCache(new ApiResponseCache(CACHE_SIZE, CACHE_TTL));
+            api.setSpillThreshold(0);
+            api.setSpillDirectory(spillDirectory);
+            CacheWarmer warmer = new CacheWarmer(api, 1);
+
+            // Spooled responses aren't cached, so they don't count as loaded, and their files are deleted.
+            assertFalse(warmer.warmUp(new StringReader("[{\"action\": \"query\", \"meta\": \"siteinfo\"}]")));
+            assertEquals(0, warmer.getLoadedCount());
+            assertEquals(1, warmer.getFailedCount());
+            assertEquals(0, api.getResponseCache().size());
+            assertEquals(0, spillDirectory.list().length);
+        } finally {
+            StubConnectionFactory.uninstall();
+            spillDirectory.delete();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWarmUpWithoutCache() throws Exception {
+        new CacheWarmer(new Api("test.wikipedia.org"), 1).warmUp(new StringReader("[]"));
+    }
+}
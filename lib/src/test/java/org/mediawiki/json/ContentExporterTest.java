@@ -0,0 +1,153 @@
+package org.mediawiki.api.json;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that export page content from the API.
+ */
+public class ContentExporterTest {
+    private static final long LATENCY_MILLIS = 50;
+    private static final long SETTLE_MILLIS = 200;
+    private static final long TIMEOUT_MILLIS = 30000;
+
+    @Test
+    public void testExportJsonLines() throws Exception {
+        Api api = new Api("test.wikipedia.org", "java-mwapi-UA");
+        ContentExporter exporter = new ContentExporter(api, 2);
+        exporter.setBatchSize(1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int exported = exporter.export(
+                api.action("query")
+                        .param("generator", "allpages")
+                        .param("gapfrom", "Ampersand")
+                        .param("gapto", "Ampersand_&_title")
+                        .param("gaplimit", "max"),
+                new JsonLinesSink(Channels.newChannel(out))
+        );
+
+        BufferedReader lines = new BufferedReader(new StringReader(out.toString("UTF-8")));
+        int count = 0;
+        long lastPageId = 0;
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            JSONObject page = new JSONObject(line);
+            assertNotNull(page.optJSONArray("revisions"));
+            // Single generator page without an index, so pages come out ordered by page id.
+            assertTrue(page.optLong("pageid") > lastPageId);
+            lastPageId = page.optLong("pageid");
+            count++;
+        }
+        assertEquals(exported, count);
+    }
+
+    /**
+     * Test to verify that a prop continuation on the generator request does not export its pages twice.
+     */
+    @Test
+    public void testGeneratorPropIgnored() throws Exception {
+        new StubConnectionFactory(0, new StubConnectionFactory.Responder() {
+            @Override
+            public String respond(Map<String, String> params) {
+                if (params.containsKey("pageids")) {
+                    return pagesResponse(params.get("pageids").split("\\|"), null);
+                }
+                if (params.containsKey("prop") && !params.containsKey("rvcontinue")) {
+                    // MediaWiki lists the same pages again until the prop module is done with them.
+                    return pagesResponse(new String[] {"1", "2"}, "\"rvcontinue\": \"2|10\", \"continue\": \"||\"");
+                }
+                return pagesResponse(new String[] {"1", "2"}, null);
+            }
+        }).install();
+        try {
+            Api api = new Api("test.wikipedia.org", "java-mwapi-UA");
+            final List<Long> pageIds = new ArrayList<>();
+            int exported = new ContentExporter(api, 2).export(
+                    api.action("query")
+                            .param("generator", "allpages")
+                            .param("prop", "revisions"),
+                    new ExportSink() {
+                        @Override
+                        public void write(JSONObject page) {
+                            pageIds.add(page.optLong("pageid"));
+                        }
+                    }
+            );
+            assertEquals(2, exported);
+            assertEquals(Arrays.asList(1L, 2L), pageIds);
+        } finally {
+            StubConnectionFactory.uninstall();
+        }
+    }
+
+    /**
+     * Test to verify that no more requests are made once a failed export has returned.
+     */
+    @Test(timeout = TIMEOUT_MILLIS)
+    public void testFailureStopsWorkers() throws Exception {
+        StubConnectionFactory connections = new StubConnectionFactory(LATENCY_MILLIS,
+                new StubConnectionFactory.Responder() {
+                    @Override
+                    public String respond(Map<String, String> params) {
+                        String pageIds = params.get("pageids");
+                        if (pageIds == null) {
+                            return pagesResponse(new String[] {"1", "2"}, null);
+                        }
+                        // Page 2 has so many revisions that its batch never runs out of continuations.
+                        String continuation = "2".equals(pageIds) ? "\"rvcontinue\": \"2|10\", \"continue\": \"||\"" : null;
+                        return pagesResponse(new String[] {pageIds}, continuation);
+                    }
+                });
+        connections.install();
+        try {
+            Api api = new Api("test.wikipedia.org", "java-mwapi-UA");
+            ContentExporter exporter = new ContentExporter(api, 2);
+            exporter.setBatchSize(1);
+            try {
+                exporter.export(api.action("query").param("generator", "allpages"), new ExportSink() {
+                    @Override
+                    public void write(JSONObject page) throws IOException {
+                        throw new IOException("Disk full");
+                    }
+                });
+                fail("Expected ApiException wasn't thrown.");
+            } catch (ApiException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            int requests = connections.getRequestCount();
+            Thread.sleep(SETTLE_MILLIS);
+            assertEquals(requests, connections.getRequestCount());
+        } finally {
+            StubConnectionFactory.uninstall();
+        }
+    }
+
+    private static String pagesResponse(String[] pageIds, String continuation) {
+        StringBuilder response = new StringBuilder("{");
+        if (continuation != null) {
+            response.append("\"continue\": {").append(continuation).append("}, ");
+        }
+        response.append("\"query\": {\"pages\": [");
+        for (int i = 0; i < pageIds.length; i++) {
+            if (i > 0) {
+                response.append(", ");
+            }
+            response.append("{\"pageid\": ").append(pageIds[i]).append(", \"revisions\": []}");
+        }
+        return response.append("]}}").toString();
+    }
+}
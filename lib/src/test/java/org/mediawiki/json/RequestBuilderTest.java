@@ -2,15 +2,20 @@ package org.mediawiki.api.json;
 
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.util.Iterator;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Tests that work on the RequestBuilder level.
  */
 public class RequestBuilderTest {
+    private static final int TEXT_REPEATS = 10000;
+    private static final int READ_SIZE = 1000;
 
     /** Tests that "action" is the first parameter for app indexing to work properly */
     @Test
@@ -20,4 +25,40 @@ public class RequestBuilderTest {
         assertEquals("action", entryIterator.next().getKey());
         assertEquals("format", entryIterator.next().getKey());
     }
+
+    /** Tests that a parameter is either streamed or a String, whichever was set last */
+    @Test
+    public void testStreamParamReplacesParam() throws Exception {
+        RequestBuilder requestBuilder = new RequestBuilder(new Api("test.wikipedia.org"), "edit");
+        requestBuilder.param("text", "short").streamParam("text", new StringBuilder("long"));
+        assertFalse(requestBuilder.getParams().containsKey("text"));
+        assertTrue(requestBuilder.getStreamParams().containsKey("text"));
+
+        requestBuilder.param("text", "short");
+        assertEquals("short", requestBuilder.getParams().get("text"));
+        assertTrue(requestBuilder.getStreamParams().isEmpty());
+    }
+
+    /** Tests that streamed parameters can't be sent with a GET request */
+    @Test(expected = IllegalArgumentException.class)
+    public void testStreamParamRequiresPost() throws Exception {
+        new Api("test.wikipedia.org").action("parse").streamParam("text", "foo").get();
+    }
+
+    /** Tests that streamed text is encoded as UTF-8, across buffer boundaries */
+    @Test
+    public void testCharSequenceInputStream() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < TEXT_REPEATS; i++) {
+            text.append("\u00e9\u6f22\ud83d\ude00");
+        }
+        CharSequenceInputStream in = new CharSequenceInputStream(text);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[READ_SIZE];
+        for (int count = in.read(buffer); count != -1; count = in.read(buffer)) {
+            out.write(buffer, 0, count);
+        }
+        assertEquals(text.toString(), out.toString("UTF-8"));
+        assertEquals(-1, in.read());
+    }
 }
@@ -0,0 +1,164 @@
+package org.mediawiki.api.json;
+
+import com.github.kevinsawicki.http.HttpRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection factory answering GET requests from within the JVM, for tests that must not depend on a wiki.
+ *
+ * Install it with {@link #install()}, and restore the default factory with {@link #uninstall()} when done.
+ * Each request is answered after a fixed delay. Like a real connection, a request waiting on its answer
+ * ignores interrupts, and only gives up when it is disconnected, e.g. by {@link ApiResult#cancel()}.
+ */
+final class StubConnectionFactory implements HttpRequest.ConnectionFactory {
+    /**
+     * Produces the body of the response to a request.
+     */
+    interface Responder {
+        /**
+         * @param params Decoded query parameters of the request.
+         * @return JSON body of the response.
+         */
+        String respond(Map<String, String> params);
+    }
+
+    private final long latencyMillis;
+    private final Responder responder;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    StubConnectionFactory(final long latencyMillis, final Responder responder) {
+        this.latencyMillis = latencyMillis;
+        this.responder = responder;
+    }
+
+    void install() {
+        Api.setConnectionFactory(this);
+    }
+
+    static void uninstall() {
+        Api.setConnectionFactory(HttpRequest.ConnectionFactory.DEFAULT);
+    }
+
+    /**
+     * @return Number of requests that have been answered, or given up on when disconnected.
+     */
+    int getRequestCount() {
+        return requests.get();
+    }
+
+    @Override
+    public HttpURLConnection create(URL url) {
+        return new StubConnection(url);
+    }
+
+    @Override
+    public HttpURLConnection create(URL url, Proxy proxy) {
+        return create(url);
+    }
+
+    private static Map<String, String> queryParams(final URL url) throws UnsupportedEncodingException {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        if (url.getQuery() == null) {
+            return params;
+        }
+        for (String pair : url.getQuery().split("&")) {
+            int equals = pair.indexOf('=');
+            params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                    URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+        }
+        return params;
+    }
+
+    private final class StubConnection extends HttpURLConnection {
+        private final CountDownLatch disconnected = new CountDownLatch(1);
+        private byte[] body;
+
+        private StubConnection(final URL url) {
+            super(url);
+        }
+
+        @Override
+        public synchronized void connect() throws IOException {
+            if (connected) {
+                return;
+            }
+            awaitAnswer();
+            requests.incrementAndGet();
+            if (disconnected.getCount() == 0) {
+                throw new IOException("Socket closed");
+            }
+            body = responder.respond(queryParams(url)).getBytes(HttpRequest.CHARSET_UTF8);
+            connected = true;
+        }
+
+        /**
+         * Wait for the delay to pass or for a disconnect, whichever comes first, ignoring interrupts.
+         */
+        private void awaitAnswer() {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        disconnected.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        return;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            connect();
+            return HTTP_OK;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            connect();
+            return new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return "Content-Type".equalsIgnoreCase(name) ? "application/json; charset=utf-8" : null;
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return Collections.singletonMap("Content-Type",
+                    Collections.singletonList("application/json; charset=utf-8"));
+        }
+
+        @Override
+        public void disconnect() {
+            disconnected.countDown();
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+}
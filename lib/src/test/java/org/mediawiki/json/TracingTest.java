@@ -0,0 +1,61 @@
+package org.mediawiki.api.json;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for how requests are attributed to traced operations.
+ */
+public class TracingTest {
+    private static final int REQUESTS = 2;
+
+    @Test
+    public void testNoExporter() throws Exception {
+        TraceSpan operation = new Api("test.wikipedia.org").startOperation("foo");
+        assertSame(TraceSpan.NOOP, operation);
+        assertFalse(operation.isRecording());
+        operation.setError(new ApiException(new Exception("foo")));
+        assertNull(TraceSpan.NOOP.getError());
+    }
+
+    @Test
+    public void testRequestSpans() throws Exception {
+        final List<TraceSpan> exported = new ArrayList<TraceSpan>();
+        Api api = new Api("test.wikipedia.org");
+        api.setTraceExporter(new TraceExporter() {
+            @Override
+            public void export(TraceSpan span) {
+                exported.add(span);
+            }
+        });
+
+        TraceSpan operation = api.startOperation("foo");
+        api.action("query").get().cancel();
+        api.action("parse").get().cancel();
+        operation.end();
+        operation.end();
+
+        assertEquals(REQUESTS + 1, exported.size());
+        assertSame(operation, exported.get(REQUESTS));
+        assertNull(operation.getParentId());
+        for (TraceSpan span : exported.subList(0, REQUESTS)) {
+            assertEquals(operation.getSpanId(), span.getParentId());
+            assertEquals(operation.getCorrelationId(), span.getCorrelationId());
+            assertEquals("true", span.getAttributes().get("cancelled"));
+            assertTrue(span.getDurationNanos() >= 0);
+        }
+        assertEquals("parse", exported.get(1).getName());
+
+        // Once the operation has ended, requests are traced on their own.
+        api.action("query").get().cancel();
+        assertNull(exported.get(REQUESTS + 1).getParentId());
+    }
+}